@@ -37,6 +37,9 @@
 //	commercial Java implementations seriously attempt to minimize GC pause
 //	times.
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 class Node {
 	Node left, right;
 	int i, j;
@@ -75,6 +78,92 @@ public class GCBench {
 		}
 	}
 
+	// Subtrees at or below this depth are populated serially
+	static final int kParallelPopulateCutoff = 12;
+
+	// Array chunks of at most this many elements are filled serially
+	static final int kParallelFillChunk = 1 << 16;
+
+	// Build tree top down as Populate, but with fork-join subtrees.
+	// Nodes end up in the allocation buffers of the pool threads,
+	// not the calling thread.
+	static void ParallelPopulate(int iDepth, Node thisNode) {
+		ForkJoinPool.commonPool().invoke(
+			new PopulateTask(iDepth, thisNode));
+	}
+
+	static class PopulateTask extends RecursiveAction {
+		private final int iDepth;
+		private final Node thisNode;
+
+		PopulateTask(int iDepth, Node thisNode) {
+			this.iDepth = iDepth;
+			this.thisNode = thisNode;
+		}
+
+		@Override
+		protected void compute() {
+			if (iDepth <= kParallelPopulateCutoff) {
+				Populate(iDepth, thisNode);
+			} else {
+				thisNode.left  = new Node();
+				thisNode.right = new Node();
+				invokeAll(new PopulateTask(iDepth-1, thisNode.left),
+					  new PopulateTask(iDepth-1, thisNode.right));
+			}
+		}
+	}
+
+	// Fill array[0..n) with 1.0/i, in parallel chunks
+	static void ParallelFill(double array[], int n) {
+		ForkJoinPool.commonPool().invoke(new FillTask(array, 0, n));
+	}
+
+	static class FillTask extends RecursiveAction {
+		private final double array[];
+		private final int lo, hi;
+
+		FillTask(double array[], int lo, int hi) {
+			this.array = array;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo <= kParallelFillChunk) {
+				for (int i = lo; i < hi; ++i) {
+					array[i] = 1.0/i;
+				}
+			} else {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new FillTask(array, lo, mid),
+					  new FillTask(array, mid, hi));
+			}
+		}
+	}
+
+	// Number of evenly spaced elements sampled by CheckArray
+	static final int kCheckArraySamples = 1024;
+
+	// Spot check that the array holds the long-lived array contents
+	// (size elements, first half filled with 1.0/i). Sampled, since
+	// checking every element costs as much as filling it.
+	static boolean CheckArray(double array[], int size) {
+		if (array == null || array.length != size)
+			return false;
+		long step = Math.max(1, size / kCheckArraySamples);
+		for (long l = 0; l < size; l += step) {
+			int i = (int) l;
+			double expected = (i < size/2) ? 1.0/i : 0.0;
+			if (Double.compare(array[i], expected) != 0)
+				return false;
+		}
+		return size == 0
+			|| Double.compare(array[size-1],
+					  (size-1 < size/2) ? 1.0/(size-1) : 0.0) == 0;
+	}
+
 	// Build tree bottom-up
 	static Node MakeTree(int iDepth) {
 		if (iDepth<=0) {
@@ -95,18 +184,36 @@ public class GCBench {
 	}
 
 	static void TimeConstruction(int depth) {
+		TimeConstruction(depth, null, 0);
+	}
+
+	// Trees built are counted locally and published to metrics
+	// once about this many nodes' worth have accumulated
+	static final int kMetricsBatchNodes = 1 << 16;
+
+	// As above, reporting trees built to metrics (if non-null)
+	static void TimeConstruction(int depth, GCBenchMetrics metrics,
+				     int worker) {
 		Node    root;
 		long    tStart, tFinish;
 		int 	iNumIters = NumIters(depth);
 		Node	tempTree;
+		int	iBatch = Math.max(1, kMetricsBatchNodes / TreeSize(depth));
+		int	iPending = 0;
 
 		System.out.println("Creating " + iNumIters +
 				   " trees of depth " + depth);
+		if (metrics != null)
+			metrics.startDepth(worker, depth);
 		tStart = System.currentTimeMillis();
 		for (int i = 0; i < iNumIters; ++i) {
 			tempTree = new Node();
 			Populate(depth, tempTree);
 			tempTree = null;
+			if (metrics != null && ++iPending == iBatch) {
+				metrics.treesBuilt(worker, depth, iPending);
+				iPending = 0;
+			}
 		}
 		tFinish = System.currentTimeMillis();
 		System.out.println("\tTop down construction took "
@@ -115,7 +222,13 @@ public class GCBench {
                 for (int i = 0; i < iNumIters; ++i) {
                         tempTree = MakeTree(depth);
                         tempTree = null;
+                        if (metrics != null && ++iPending == iBatch) {
+                                metrics.treesBuilt(worker, depth, iPending);
+                                iPending = 0;
+                        }
                 }
+                if (metrics != null && iPending > 0)
+                        metrics.treesBuilt(worker, depth, iPending);
                 tFinish = System.currentTimeMillis();
                 System.out.println("\tBottom up construction took "
                                    + (tFinish - tStart) + "msecs");
@@ -6,6 +6,9 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import java.io.File;
+import java.io.IOException;
+
 import java.util.ArrayList;
 import java.util.Stack;
 import java.util.Random;
@@ -62,6 +65,81 @@ public class GCBenchMT {
     return this.numThreads;
   }
 
+  /**
+   * live in-run metrics exporter, or null if disabled.
+   * set using -metricsPort N and/or -metricsFile F
+   * command line options.
+   */
+  private GCBenchMetrics metrics;
+
+  public GCBenchMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  public void setMetrics(GCBenchMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * if true, GCBenchRunner threads build their long-lived
+   * tree and array with fork-join tasks rather than serially.
+   * set using -parallelSetup command line option.
+   */
+  private boolean parallelSetup;
+
+  public boolean getParallelSetup() {
+    return this.parallelSetup;
+  }
+
+  public void setParallelSetup(boolean parallelSetup) {
+    this.parallelSetup = parallelSetup;
+  }
+
+  /**
+   * snapshot to restore the long-lived array from
+   * instead of computing it, or null.
+   * (trees are always rebuilt - see LongLivedSnapshot)
+   * set using -loadSnapshot F command line option,
+   * not available with -remoteMem.
+   */
+  private LongLivedSnapshot snapshot;
+
+  public LongLivedSnapshot getSnapshot() {
+    return this.snapshot;
+  }
+
+  public void setSnapshot(LongLivedSnapshot snapshot) {
+    this.snapshot = snapshot;
+  }
+
+  /**
+   * file to save the long-lived array to at the end of the run,
+   * or null.
+   * set using -saveSnapshot F command line option,
+   * not available with -remoteMem.
+   */
+  private File saveSnapshotFile;
+
+  public File getSaveSnapshotFile() {
+    return this.saveSnapshotFile;
+  }
+
+  public void setSaveSnapshotFile(File saveSnapshotFile) {
+    this.saveSnapshotFile = saveSnapshotFile;
+  }
+
+  /**
+   * one runner's long-lived array, kept for -saveSnapshot
+   * (all runners build the same contents, so one copy suffices)
+   */
+  private double [] snapshotArray;
+
+  public synchronized void offerSnapshotData(double [] array) {
+    if (snapshotArray == null) {
+      snapshotArray = array;
+    }
+  }
+
   /**
    * pool (per thread) of Node objects to use
    * when constructing data for
@@ -150,12 +228,15 @@ public class GCBenchMT {
       // phase 2
       System.out.println("About to shuffle pointers between thread-local data structures...");
 
+      long tSetupStart = System.currentTimeMillis();
       // iterate over each depth of tree
       // at each depth, make all nodes in trees[i] point to nodes in trees[i+1]
       for (int i=0; i<numThreads; i++) {
         Node remoteTree = MakeRemoteTree(GCBench.kLongLivedTreeDepth, i);
         longLivedTrees[i] = remoteTree;
       }
+      System.out.println("Built remote trees in "
+                         + (System.currentTimeMillis() - tSetupStart) + "ms");
 
       System.out.println("Finished shuffling pointers between thread-local data structures.");
 
@@ -177,12 +258,11 @@ public class GCBenchMT {
     executor.shutdown();
     // Wait until all threads finish
     try {
-      // Wait a while for existing tasks to terminate
-      if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
-        executor.shutdownNow(); // Cancel currently executing tasks
-        // Wait a while for tasks to respond to being cancelled
-        if (!executor.awaitTermination(60, TimeUnit.SECONDS))
-          System.err.println("Pool did not terminate");
+      // runners ignore interrupts, so there is no point giving
+      // up on them: wait until every one has really finished,
+      // however long the run (soak runs can take hours)
+      while (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+        // still running
       }
     } catch (InterruptedException ie) {
       // (Re-)Cancel if current thread also interrupted
@@ -192,6 +272,17 @@ public class GCBenchMT {
     }
     System.out.println("[harness] Finished all threads");
 
+    if (saveSnapshotFile != null && snapshotArray != null) {
+      try {
+        LongLivedSnapshot.save(saveSnapshotFile, GCBench.kLongLivedTreeDepth,
+                               snapshotArray);
+        System.out.println("[harness] Saved long-lived data snapshot to "
+                           + saveSnapshotFile);
+      } catch (IOException e) {
+        System.err.println("unable to save snapshot: " + e.getMessage());
+      }
+    }
+
     if (this.enableRemoteMem) {
       Random rng = new Random();
       int r = rng.nextInt(numThreads);
@@ -254,11 +345,42 @@ public class GCBenchMT {
       .create("numThreads");
     Option remoteMem = new Option("remoteMem",
                                   "enable aggressive remote memory allocations");
+    Option parallelSetup = new Option("parallelSetup",
+                                      "build long-lived data with fork-join tasks"
+                                      + " (nodes are then allocated by pool threads,"
+                                      + " not each runner thread)");
+    Option saveSnapshot = OptionBuilder.withArgName("file")
+      .hasArg()
+      .withDescription("save long-lived array to snapshot file (not with -remoteMem)")
+      .create("saveSnapshot");
+    Option loadSnapshot = OptionBuilder.withArgName("file")
+      .hasArg()
+      .withDescription("restore long-lived array from snapshot file"
+                       + " (trees are always rebuilt; not with -remoteMem)")
+      .create("loadSnapshot");
+    Option metricsPort = OptionBuilder.withArgName("port")
+      .hasArg()
+      .withDescription("serve live metrics on http://localhost:port/metrics")
+      .create("metricsPort");
+    Option metricsFile = OptionBuilder.withArgName("file")
+      .hasArg()
+      .withDescription("periodically dump live metrics to file")
+      .create("metricsFile");
+    Option metricsInterval = OptionBuilder.withArgName("secs")
+      .hasArg()
+      .withDescription("interval between metrics file dumps (default 10)")
+      .create("metricsInterval");
     
     options.addOption(help);
     options.addOption(version);
     options.addOption(numThreads);
     options.addOption(remoteMem);
+    options.addOption(parallelSetup);
+    options.addOption(saveSnapshot);
+    options.addOption(loadSnapshot);
+    options.addOption(metricsPort);
+    options.addOption(metricsFile);
+    options.addOption(metricsInterval);
 
     CommandLineParser parser = new GnuParser();
     CommandLine line = null;
@@ -300,7 +422,70 @@ public class GCBenchMT {
     }
     
     GCBenchMT gcb = new GCBenchMT(n, useRemoteMem);
+    if (line.hasOption("parallelSetup")) {
+      System.out.println("enabling parallel long-lived data setup");
+      gcb.setParallelSetup(true);
+    }
+    if (useRemoteMem
+        && (line.hasOption("loadSnapshot") || line.hasOption("saveSnapshot"))) {
+      // remote trees have no array to snapshot, and rebuilding
+      // trees from a file is no faster than MakeRemoteTree
+      System.err.println("ignoring loadSnapshot/saveSnapshot parameters: not supported with -remoteMem");
+    }
+    else if (line.hasOption("loadSnapshot")) {
+      try {
+        gcb.setSnapshot(LongLivedSnapshot.load(
+                          new File(line.getOptionValue("loadSnapshot"))));
+      }
+      catch(IOException e) {
+        System.err.println("unable to load snapshot: " + e.getMessage());
+      }
+    }
+    if (!useRemoteMem && line.hasOption("saveSnapshot")) {
+      gcb.setSaveSnapshotFile(new File(line.getOptionValue("saveSnapshot")));
+    }
+
+    GCBenchMetrics metrics = null;
+    if (line.hasOption("metricsInterval") && !line.hasOption("metricsFile")) {
+      System.err.println("ignoring metricsInterval parameter: only used with -metricsFile");
+    }
+    if (line.hasOption("metricsPort") || line.hasOption("metricsFile")) {
+      metrics = new GCBenchMetrics(n);
+      metrics.startGCListener();
+      if (line.hasOption("metricsPort")) {
+        try {
+          metrics.startServer(Integer.parseInt(line.getOptionValue("metricsPort")));
+        }
+        catch(NumberFormatException e) {
+          System.err.println("unable to parse metricsPort parameter: " + line.getOptionValue("metricsPort"));
+        }
+        catch(IOException e) {
+          System.err.println("unable to start metrics server: " + e.getMessage());
+        }
+      }
+      if (line.hasOption("metricsFile")) {
+        int interval = 10;
+        if (line.hasOption("metricsInterval")) {
+          try {
+            interval = Integer.parseInt(line.getOptionValue("metricsInterval"));
+            if (interval <= 0)
+              throw new NumberFormatException("must be positive");
+          }
+          catch(NumberFormatException e) {
+            System.err.println("unable to parse metricsInterval parameter: " + line.getOptionValue("metricsInterval"));
+            interval = 10;
+          }
+        }
+        metrics.startFileDump(new File(line.getOptionValue("metricsFile")), interval);
+      }
+      gcb.setMetrics(metrics);
+    }
+
     gcb.start();
+
+    if (metrics != null) {
+      metrics.stop();
+    }
   } // main()
 
   /**
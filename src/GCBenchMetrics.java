@@ -0,0 +1,356 @@
+// GCBenchMetrics.java
+// live in-run metrics for long-duration (soak) runs
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * optional exporter for running benchmark counters.
+ * Metrics are rendered as plain-text "name value" lines
+ * and either served over HTTP (JDK built-in server, on
+ * localhost) or periodically dumped to a file.
+ *
+ * Worker threads count trees locally in
+ * GCBench.TimeConstruction and publish them here in batches.
+ * Per-depth totals are striped (LongAdder); per-worker
+ * progress is single-writer and padded to its own cache line.
+ */
+public class GCBenchMetrics {
+
+  /**
+   * number of recent GC collections kept for reporting
+   */
+  public static final int NUM_RECENT_COLLECTIONS = 8;
+
+  /**
+   * number of worker threads being tracked
+   */
+  private final int numWorkers;
+
+  /**
+   * trees built so far, indexed by tree depth
+   */
+  private final LongAdder [] treesPerDepth;
+
+  /**
+   * per-worker progress, WORKER_STRIDE longs per worker:
+   * trees built, current depth, finished flag.
+   * Each worker only writes its own slots, and the stride
+   * keeps different workers off the same cache line.
+   */
+  private final AtomicLongArray workerProgress;
+
+  private static final int WORKER_STRIDE = 16; // 128 bytes
+  private static final int TREES = 0;
+  private static final int DEPTH = 1;
+  private static final int DONE = 2;
+
+  /**
+   * ring buffer of most recent GC collections (written by the
+   * JMX notification thread only)
+   */
+  private final String [] recentCollections;
+  private int recentCollectionsNext;
+
+  /**
+   * interval at which the allocation rate is sampled
+   */
+  public static final int RATE_SAMPLE_SECS = 1;
+
+  /**
+   * time metrics collection started, and allocation rate
+   * state (tLastSample/lastNodesAllocated only touched by
+   * the ticker thread, so reads never disturb the rate)
+   */
+  private final long tStart;
+  private long tLastSample;
+  private long lastNodesAllocated;
+  private volatile long nodeRate;
+
+  /**
+   * runs the rate sampler and any periodic file dumps
+   */
+  private ScheduledExecutorService ticker;
+
+  private HttpServer server;
+  private File dumpFile;
+  private NotificationListener gcListener;
+
+  /**
+   * main constructor
+   */
+  public GCBenchMetrics(int numWorkers) {
+    this.numWorkers = numWorkers;
+    this.treesPerDepth = new LongAdder[GCBench.kMaxTreeDepth + 1];
+    for (int d=0; d<treesPerDepth.length; d++) {
+      treesPerDepth[d] = new LongAdder();
+    }
+    this.workerProgress = new AtomicLongArray(numWorkers * WORKER_STRIDE);
+    this.recentCollections = new String[NUM_RECENT_COLLECTIONS];
+    this.recentCollectionsNext = 0;
+    this.tStart = System.currentTimeMillis();
+    this.tLastSample = tStart;
+    this.lastNodesAllocated = 0;
+    this.nodeRate = 0;
+    this.ticker = Executors.newSingleThreadScheduledExecutor(daemonThreads());
+    ticker.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          sampleRate();
+        }
+      }, RATE_SAMPLE_SECS, RATE_SAMPLE_SECS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * record that a worker is starting trees of the given depth
+   */
+  public void startDepth(int worker, int depth) {
+    workerProgress.lazySet(worker * WORKER_STRIDE + DEPTH, depth);
+  }
+
+  /**
+   * record a batch of trees of the given depth built by a worker
+   */
+  public void treesBuilt(int worker, int depth, int count) {
+    treesPerDepth[depth].add(count);
+    int slot = worker * WORKER_STRIDE + TREES;
+    workerProgress.lazySet(slot, workerProgress.get(slot) + count);
+  }
+
+  /**
+   * record that a worker has completed all its phases
+   */
+  public void workerDone(int worker) {
+    workerProgress.lazySet(worker * WORKER_STRIDE + DONE, 1);
+  }
+
+  /**
+   * serve metrics at http://localhost:port/metrics
+   */
+  public void startServer(int port) throws IOException {
+    server = HttpServer.create(
+      new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/metrics", new HttpHandler() {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+          byte [] body = snapshot().getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().set("Content-Type",
+                                            "text/plain; charset=utf-8");
+          exchange.sendResponseHeaders(200, body.length);
+          OutputStream os = exchange.getResponseBody();
+          os.write(body);
+          os.close();
+        }
+      });
+    server.setExecutor(Executors.newSingleThreadExecutor(daemonThreads()));
+    server.start();
+    System.out.println("[metrics] serving on http://localhost:"
+                       + server.getAddress().getPort() + "/metrics");
+  }
+
+  /**
+   * dump metrics to the given file every intervalSecs seconds.
+   * The file is replaced atomically so readers never see a
+   * partial dump.
+   */
+  public void startFileDump(final File file, int intervalSecs) {
+    dumpFile = file;
+    ticker.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          dumpTo(file);
+        }
+      }, intervalSecs, intervalSecs, TimeUnit.SECONDS);
+    System.out.println("[metrics] dumping to " + file
+                       + " every " + intervalSecs + "s");
+  }
+
+  /**
+   * subscribe to GC notifications so that the latest
+   * collection durations can be reported
+   */
+  public void startGCListener() {
+    gcListener = new NotificationListener() {
+        @Override
+        public void handleNotification(Notification n, Object handback) {
+          if (!n.getType().equals(
+                GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+            return;
+          GarbageCollectionNotificationInfo info =
+            GarbageCollectionNotificationInfo.from((CompositeData) n.getUserData());
+          // for concurrent collectors the duration is a whole
+          // cycle, not a pause - the action says which it was
+          recordCollection(info.getGcName() + " (" + info.getGcAction()
+                           + ", " + info.getGcCause() + ") "
+                           + info.getGcInfo().getDuration() + "ms");
+        }
+      };
+    for (GarbageCollectorMXBean gc :
+           ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (gc instanceof NotificationEmitter) {
+        ((NotificationEmitter) gc).addNotificationListener(gcListener, null, null);
+      }
+    }
+  }
+
+  /**
+   * shut down exporters, writing one final dump if
+   * file dumping is enabled
+   */
+  public void stop() {
+    if (server != null) {
+      server.stop(0);
+      server = null;
+    }
+    if (ticker != null) {
+      ticker.shutdownNow();
+      ticker = null;
+      if (dumpFile != null)
+        dumpTo(dumpFile);
+    }
+    if (gcListener != null) {
+      for (GarbageCollectorMXBean gc :
+             ManagementFactory.getGarbageCollectorMXBeans()) {
+        if (gc instanceof NotificationEmitter) {
+          try {
+            ((NotificationEmitter) gc).removeNotificationListener(gcListener);
+          } catch (javax.management.ListenerNotFoundException e) {
+            // not registered with this collector
+          }
+        }
+      }
+      gcListener = null;
+    }
+  }
+
+  private synchronized void recordCollection(String collection) {
+    recentCollections[recentCollectionsNext] = collection;
+    recentCollectionsNext = (recentCollectionsNext + 1) % NUM_RECENT_COLLECTIONS;
+  }
+
+  /**
+   * update nodeRate over the last ticker interval
+   */
+  private void sampleRate() {
+    long now = System.currentTimeMillis();
+    long nodes = 0;
+    for (int d=0; d<treesPerDepth.length; d++) {
+      nodes += treesPerDepth[d].sum() * GCBench.TreeSize(d);
+    }
+    long interval = Math.max(1, now - tLastSample);
+    nodeRate = (nodes - lastNodesAllocated) * 1000 / interval;
+    tLastSample = now;
+    lastNodesAllocated = nodes;
+  }
+
+  /**
+   * render all counters as "name value" lines.
+   * Read-only: does not change any metrics state.
+   */
+  public synchronized String snapshot() {
+    long now = System.currentTimeMillis();
+    long nodes = 0;
+    long [] trees = new long[treesPerDepth.length];
+    for (int d=0; d<treesPerDepth.length; d++) {
+      trees[d] = treesPerDepth[d].sum();
+      nodes += trees[d] * GCBench.TreeSize(d);
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("uptime_ms ").append(now - tStart).append('\n');
+    for (int d=GCBench.kMinTreeDepth; d<treesPerDepth.length; d += 2) {
+      sb.append("trees_built{depth=").append(d).append("} ")
+        .append(trees[d]).append('\n');
+    }
+    sb.append("nodes_allocated ").append(nodes).append('\n');
+    // sampled by the ticker every RATE_SAMPLE_SECS
+    sb.append("nodes_allocated_per_sec ").append(nodeRate).append('\n');
+
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    sb.append("heap_used_bytes ").append(heap.getUsed()).append('\n');
+    sb.append("heap_committed_bytes ").append(heap.getCommitted()).append('\n');
+    sb.append("heap_max_bytes ").append(heap.getMax()).append('\n');
+
+    for (GarbageCollectorMXBean gc :
+           ManagementFactory.getGarbageCollectorMXBeans()) {
+      String name = gc.getName().replace(' ', '_');
+      sb.append("gc_count{gc=").append(name).append("} ")
+        .append(gc.getCollectionCount()).append('\n');
+      sb.append("gc_time_ms{gc=").append(name).append("} ")
+        .append(gc.getCollectionTime()).append('\n');
+    }
+    // most recent first
+    for (int i=1; i<=NUM_RECENT_COLLECTIONS; i++) {
+      String p = recentCollections[(recentCollectionsNext - i + NUM_RECENT_COLLECTIONS)
+                              % NUM_RECENT_COLLECTIONS];
+      if (p == null)
+        break;
+      sb.append("gc_recent_collection{n=").append(i).append("} ")
+        .append(p).append('\n');
+    }
+
+    for (int w=0; w<numWorkers; w++) {
+      int slot = w * WORKER_STRIDE;
+      sb.append("worker_trees_built{worker=").append(w).append("} ")
+        .append(workerProgress.get(slot + TREES)).append('\n');
+      sb.append("worker_current_depth{worker=").append(w).append("} ")
+        .append(workerProgress.get(slot + DEPTH)).append('\n');
+      sb.append("worker_done{worker=").append(w).append("} ")
+        .append(workerProgress.get(slot + DONE)).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private void dumpTo(File file) {
+    try {
+      File tmp = new File(file.getPath() + ".tmp");
+      PrintWriter pw = new PrintWriter(tmp, "UTF-8");
+      pw.print(snapshot());
+      pw.close();
+      // tmp is in the same directory, so this is a rename
+      Files.move(tmp.toPath(), file.toPath(),
+                 StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      System.err.println("[metrics] unable to write " + file
+                         + ": " + e.getMessage());
+    }
+  }
+
+  private static ThreadFactory daemonThreads() {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "gcbench-metrics");
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+}
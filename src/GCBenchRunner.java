@@ -37,6 +37,7 @@
 //	commercial Java implementations seriously attempt to minimize GC pause
 //	times.
 
+import java.io.IOException;
 import java.util.Random;
 
 public class GCBenchRunner implements Runnable {
@@ -81,7 +82,14 @@ public class GCBenchRunner implements Runnable {
 		Node	tempTree;
 		long	tStart, tFinish;
 		long	tElapsed;
+                long    tSetup = 0; // time spent building long-lived data
                 double [] array = null; // for local long-lived data
+                GCBenchMetrics metrics =
+                  (harness == null) ? null : harness.getMetrics();
+                boolean parallelSetup =
+                  (harness != null) && harness.getParallelSetup();
+                LongLivedSnapshot snapshot =
+                  (harness == null) ? null : harness.getSnapshot();
 
 		output("Garbage Collector Test");
 		output(
@@ -95,21 +103,54 @@ public class GCBenchRunner implements Runnable {
 		tempTree = null;
 
                 if (this.localLongLivedData) {
+                  long tSetupStart = System.currentTimeMillis();
                   // Create a long lived object
                   output(
                          " Creating a long-lived binary tree of depth " +
                          kLongLivedTreeDepth);
+                  // (always rebuilt - a snapshot only restores the array)
                   longLivedTree = new Node();
-                  GCBench.Populate(kLongLivedTreeDepth, longLivedTree);
+                  if (parallelSetup) {
+                    GCBench.ParallelPopulate(kLongLivedTreeDepth, longLivedTree);
+                  }
+                  else {
+                    GCBench.Populate(kLongLivedTreeDepth, longLivedTree);
+                  }
                   
                   // Create long-lived array, filling half of it
                   output(
                          " Creating a long-lived array of "
                          + kArraySize + " doubles");
-                  array = new double[kArraySize];
-                  for (int i = 0; i < kArraySize/2; ++i) {
-                    array[i] = 1.0/i;
+                  boolean restored = false;
+                  if (snapshot != null) {
+                    try {
+                      // checks the snapshot matches this live set
+                      array = snapshot.restoreArray(kLongLivedTreeDepth,
+                                                    kArraySize);
+                      restored = true;
+                    }
+                    catch(IOException e) {
+                      output("unable to restore snapshot array: "
+                             + e.getMessage() + " - building instead");
+                    }
                   }
+                  if (!restored) {
+                    array = new double[kArraySize];
+                    if (parallelSetup) {
+                      GCBench.ParallelFill(array, kArraySize/2);
+                    }
+                    else {
+                      for (int i = 0; i < kArraySize/2; ++i) {
+                        array[i] = 1.0/i;
+                      }
+                    }
+                  }
+                  tSetup = System.currentTimeMillis() - tSetupStart;
+                  output("Long-lived setup took " + tSetup + "ms"
+                         + (parallelSetup ? " (parallel)" : "")
+                         + (restored ? " (array from snapshot)" : ""));
+                  if (harness != null && harness.getSaveSnapshotFile() != null)
+                    harness.offerSnapshotData(array);
                 }
                 
 		GCBench.PrintDiagnostics();
@@ -117,21 +158,23 @@ public class GCBenchRunner implements Runnable {
                 // now allocate local short-lived data
                 
 		for (int d = kMinTreeDepth; d <= kMaxTreeDepth; d += 2) {
-                  GCBench.TimeConstruction(d);
+                  GCBench.TimeConstruction(d, metrics, id);
 
                   // @jsinger
                   // shuffle long-lived pointers here
                   // (from harness-allocated data - change its
-                  // static pointers)
-                  Random rng = new Random();
-                  int r0 = rng.nextInt(harness.getNumThreads());
-                  int r1 = rng.nextInt(harness.getNumThreads());
-                  int r2 = rng.nextInt(harness.getNumThreads());
-                  int r3 = rng.nextInt(harness.getNumThreads());
-                  GCBenchMT.longLivedPointer0 = harness.longLivedTrees[r0];
-                  GCBenchMT.longLivedPointer1 = harness.longLivedTrees[r1];
-                  GCBenchMT.longLivedPointer2 = harness.longLivedTrees[r2];
-                  GCBenchMT.longLivedPointer3 = harness.longLivedTrees[r3];
+                  // static pointers - only present for -remoteMem)
+                  if (harness != null && harness.longLivedTrees != null) {
+                    Random rng = new Random();
+                    int r0 = rng.nextInt(harness.getNumThreads());
+                    int r1 = rng.nextInt(harness.getNumThreads());
+                    int r2 = rng.nextInt(harness.getNumThreads());
+                    int r3 = rng.nextInt(harness.getNumThreads());
+                    GCBenchMT.longLivedPointer0 = harness.longLivedTrees[r0];
+                    GCBenchMT.longLivedPointer1 = harness.longLivedTrees[r1];
+                    GCBenchMT.longLivedPointer2 = harness.longLivedTrees[r2];
+                    GCBenchMT.longLivedPointer3 = harness.longLivedTrees[r3];
+                  }
 		}
                 
                 
@@ -146,7 +189,10 @@ public class GCBenchRunner implements Runnable {
 		tFinish = System.currentTimeMillis();
 		tElapsed = tFinish-tStart;
 		GCBench.PrintDiagnostics();
+		output("Measured phases took " + (tElapsed - tSetup) + "ms.");
 		output("Completed in " + tElapsed + "ms.");
+                if (metrics != null)
+                  metrics.workerDone(id);
 	}
 
 
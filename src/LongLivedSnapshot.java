@@ -0,0 +1,162 @@
+// LongLivedSnapshot.java
+// save/restore of long-lived benchmark data between runs
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * binary snapshot of a GCBenchRunner long-lived array,
+ * accessed through memory-mapped windows of the file.
+ *
+ * Only the array is stored - a bulk copy is much cheaper
+ * than recomputing it. Trees are not: rebuilding them from a
+ * stored shape is bound by Node allocation just like
+ * Populate/MakeRemoteTree, so it saves no setup time.
+ * The long-lived tree depth is recorded so a snapshot is
+ * only used by runs with the same live set.
+ *
+ * Layout (big-endian):
+ *   int magic, int version, int treeDepth, int reserved,
+ *   long arrayLength, long reserved, double[arrayLength] array
+ */
+public class LongLivedSnapshot {
+
+  public static final int MAGIC = 0x47434253; // "GCBS"
+  public static final int VERSION = 3;
+
+  /**
+   * header size; keeps the array 8-byte aligned
+   */
+  public static final int HEADER_BYTES = 32;
+
+  /**
+   * largest region mapped at once (a MappedByteBuffer
+   * cannot exceed 2GB), a multiple of 8 bytes
+   */
+  public static final int WINDOW_BYTES = 1 << 30;
+
+  private final File file;
+  private final int treeDepth;
+  private final int arrayLength;
+
+  /**
+   * parse and validate the header, so that a damaged file is
+   * reported as an IOException rather than failing later
+   */
+  private LongLivedSnapshot(File file, MappedByteBuffer header,
+                            long fileLength) throws IOException {
+    this.file = file;
+    if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+      throw new IOException("not a GCBench snapshot (version "
+                            + VERSION + ")");
+    this.treeDepth = header.getInt(8);
+    long len = header.getLong(16);
+    if (treeDepth < 0)
+      throw new IOException("corrupt snapshot tree depth: " + treeDepth);
+    if (len < 0 || len > Integer.MAX_VALUE - 8)
+      throw new IOException("corrupt snapshot array length: " + len);
+    if (fileLength != HEADER_BYTES + 8 * len)
+      throw new IOException("truncated snapshot: " + fileLength
+                            + " bytes, expected " + (HEADER_BYTES + 8 * len));
+    this.arrayLength = (int) len;
+  }
+
+  /**
+   * read the header of an existing snapshot file
+   */
+  public static LongLivedSnapshot load(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      long fileLength = raf.length();
+      if (fileLength < HEADER_BYTES)
+        throw new IOException("truncated snapshot: " + fileLength + " bytes");
+      return new LongLivedSnapshot(file, raf.getChannel().map(
+        FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES), fileLength);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * write a snapshot of array, built alongside a
+   * long-lived tree of the given depth
+   */
+  public static void save(File file, int treeDepth, double [] array)
+    throws IOException {
+    int len = array.length;
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(HEADER_BYTES + 8L * len);
+      FileChannel ch = raf.getChannel();
+      MappedByteBuffer header =
+        ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+      header.putInt(MAGIC);
+      header.putInt(VERSION);
+      header.putInt(treeDepth);
+      header.putInt(0);
+      header.putLong(len);
+      header.putLong(0);
+      header.force();
+
+      long pos = HEADER_BYTES;
+      int done = 0;
+      while (done < len) {
+        int n = Math.min(len - done, WINDOW_BYTES / 8);
+        MappedByteBuffer w =
+          ch.map(FileChannel.MapMode.READ_WRITE, pos, 8L * n);
+        w.asDoubleBuffer().put(array, done, n);
+        w.force();
+        done += n;
+        pos += 8L * n;
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  public int getTreeDepth() {
+    return treeDepth;
+  }
+
+  public int getArrayLength() {
+    return arrayLength;
+  }
+
+  /**
+   * rebuild the long-lived array with bulk copies from mapped
+   * windows, for a run with the given tree depth and array size.
+   * Throws IOException if the snapshot was saved for a different
+   * live set or fails GCBench.CheckArray. Safe to call
+   * concurrently from several runner threads.
+   */
+  public double [] restoreArray(int expectedTreeDepth, int expectedLength)
+    throws IOException {
+    if (treeDepth != expectedTreeDepth || arrayLength != expectedLength)
+      throw new IOException("snapshot is for tree depth " + treeDepth
+                            + ", array size " + arrayLength
+                            + "; this run uses " + expectedTreeDepth
+                            + ", " + expectedLength);
+    double [] array = new double[arrayLength];
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel ch = raf.getChannel();
+      long pos = HEADER_BYTES;
+      int done = 0;
+      while (done < arrayLength) {
+        int n = Math.min(arrayLength - done, WINDOW_BYTES / 8);
+        ch.map(FileChannel.MapMode.READ_ONLY, pos, 8L * n)
+          .asDoubleBuffer().get(array, done, n);
+        done += n;
+        pos += 8L * n;
+      }
+    } finally {
+      raf.close();
+    }
+    if (!GCBench.CheckArray(array, expectedLength))
+      throw new IOException("snapshot array contents do not match");
+    return array;
+  }
+}